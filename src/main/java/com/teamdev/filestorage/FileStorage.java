@@ -16,6 +16,24 @@ public interface FileStorage {
     void purge(long bytes);
     InputStream readFile(String key);
 
+    /**
+     * Open stream of the file which can be still written. The stream blocks until
+     * new data is written, ends when the file is completed and throws
+     * <code>IOException</code> if writing of the file fails.
+     * @param key the name of the file
+     * @return stream of the file or <code>null</code> if there is no such file
+     */
+    InputStream tailFile(String key);
+
     long getFreeSpace();
     long getUsedSpace();
+
+    /**
+     * Get the namespace of the storage. Namespace has its own keys and quota,
+     * its used space is also counted in the storage.
+     * @param name the name of the namespace
+     * @param maxSpace the maximum space of the namespace, used when the namespace is created
+     * @return storage of the namespace
+     */
+    FileStorage getNamespace(String name, long maxSpace);
 }
@@ -0,0 +1,47 @@
+package com.teamdev.filestorage.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of the I/O buffers. When the pool is empty a new buffer is allocated,
+ * buffers released above the capacity of the pool are left to the garbage collector.
+ */
+public class BufferPool {
+    private final BlockingQueue<byte[]> buffers;
+    private final int bufferSize;
+
+    /**
+     * Number of the buffers which are acquired and not released yet.
+     */
+    private final AtomicInteger borrowedBuffers = new AtomicInteger();
+
+    public BufferPool(int capacity, int bufferSize) {
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+        this.bufferSize = bufferSize;
+    }
+
+    public byte[] acquire() {
+        borrowedBuffers.incrementAndGet();
+
+        final byte[] buffer = buffers.poll();
+        return buffer == null ? new byte[bufferSize] : buffer;
+    }
+
+    public void release(byte[] buffer) {
+        borrowedBuffers.decrementAndGet();
+
+        if (buffer.length == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+
+    public int getBorrowedBuffers() {
+        return borrowedBuffers.get();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,229 @@
+package com.teamdev.filestorage.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps checksums of the stored files. Every change is appended to the journal file,
+ * so a write costs one line instead of rewriting the whole index. The journal is
+ * compacted when the index is loaded and when removed entries outnumber the live ones.
+ */
+public class ChecksumIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumIndex.class);
+
+    /**
+     * Journal shorter than this number of lines is never compacted while running.
+     */
+    private static final long MIN_COMPACTION_LINES = 1024;
+
+    private final Map<String, Long> checksums = new ConcurrentHashMap<>();
+    private final String journalFile;
+
+    /**
+     * Journal is kept open, every entry is flushed as soon as it is written.
+     */
+    private Writer journal;
+    private long journalLines;
+    private final char[] digits = new char[20];
+
+    public ChecksumIndex(String journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Load checksums from the journal file and rewrite it without removed entries.
+     */
+    public synchronized void load() {
+        LOGGER.info("Load checksums from: " + journalFile);
+
+        final Path path = Paths.get(journalFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            LOGGER.error("Failed to load checksums");
+            return;
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(key);
+            if (!value.isEmpty()) {
+                checksums.put(key, Long.valueOf(value));
+            }
+        }
+
+        compact();
+    }
+
+    /**
+     * Associate checksum with the specified file.
+     * @param file stored file
+     * @param checksum checksum of the file content
+     */
+    public void put(File file, long checksum) {
+        final String key = file.toString();
+        final Long value = checksum;
+        checksums.put(key, value);
+        append(key, value);
+    }
+
+    /**
+     * @param file stored file
+     * @return checksum of the file or <code>null</code> if the file has no checksum
+     */
+    public Long get(File file) {
+        return checksums.get(file.toString());
+    }
+
+    public void remove(File file) {
+        final String key = file.toString();
+        if (checksums.remove(key) != null) {
+            append(key, null);
+        }
+    }
+
+    /**
+     * @return snapshot of the files which have checksums
+     */
+    public List<File> files() {
+        final List<File> files = new ArrayList<>(checksums.size());
+        for (String key : checksums.keySet()) {
+            files.add(new File(key));
+        }
+        return files;
+    }
+
+    public int size() {
+        return checksums.size();
+    }
+
+    /**
+     * @param value checksum of the file, <code>null</code> if the file is removed
+     */
+    private synchronized void append(String key, Long value) {
+        try {
+            if (journal == null) {
+                journal = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(journalFile, true), StandardCharsets.UTF_8));
+            }
+
+            writeEntry(journal, key, value);
+            journal.flush();
+        } catch (IOException e) {
+            LOGGER.error("Failed to write checksum of file: " + key);
+            closeJournal();
+            return;
+        }
+
+        journalLines++;
+        if (journalLines > 2 * checksums.size() + MIN_COMPACTION_LINES) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the journal with the live entries only. The new journal is written
+     * to the temporary file and then replaces the old one, so the journal is not
+     * lost if the storage is stopped in the middle of the compaction.
+     */
+    private void compact() {
+        LOGGER.debug("Compact checksum journal: {}", journalFile);
+
+        closeJournal();
+
+        final Path path = Paths.get(journalFile);
+        final Path compacted = Paths.get(journalFile + ".tmp");
+        long lines = 0;
+        try {
+            try (Writer writer = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : checksums.entrySet()) {
+                    writeEntry(writer, entry.getKey(), entry.getValue());
+                    lines++;
+                }
+            }
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Failed to compact checksums");
+            // Retry when the journal grows again instead of on every write.
+            lines = 0;
+        }
+
+        journalLines = lines;
+    }
+
+    private void writeEntry(Writer writer, String key, Long value) throws IOException {
+        writeEscaped(writer, key);
+        writer.write('=');
+        if (value != null) {
+            writeNumber(writer, value);
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Write decimal digits of the number without creating a string for every entry.
+     */
+    private void writeNumber(Writer writer, long value) throws IOException {
+        if (value < 0) {
+            writer.write('-');
+        }
+
+        int position = digits.length;
+        do {
+            digits[--position] = (char) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        writer.write(digits, position, digits.length - position);
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.error("Failed to close checksum journal");
+            }
+            journal = null;
+        }
+    }
+
+    private static void writeEscaped(Writer writer, String key) throws IOException {
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            switch (c) {
+                case '\\': case ':': case '=': case ' ': case '#': case '!':
+                    writer.write('\\');
+                    writer.write(c);
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                case '\f':
+                    writer.write("\\f");
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+}
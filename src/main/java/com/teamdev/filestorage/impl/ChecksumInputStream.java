@@ -0,0 +1,81 @@
+package com.teamdev.filestorage.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Input stream which computes checksum of the read content and verifies it
+ * when the end of the stream is reached.
+ */
+public class ChecksumInputStream extends FilterInputStream {
+    private final CRC32 checksum = new CRC32();
+    private final long expected;
+    private final String name;
+
+    private boolean verified;
+
+    public ChecksumInputStream(InputStream input, long expected, String name) {
+        super(input);
+        this.expected = expected;
+        this.name = name;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = in.read();
+        if (b == -1) {
+            verify();
+        } else {
+            checksum.update(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int count = in.read(b, off, len);
+        if (count == -1) {
+            verify();
+        } else {
+            checksum.update(b, off, count);
+        }
+        return count;
+    }
+
+    /**
+     * Skipped bytes are read anyway, otherwise the checksum can not be verified.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+
+        final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int count = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (count == -1) {
+                break;
+            }
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void verify() throws IOException {
+        if (!verified) {
+            verified = true;
+            if (checksum.getValue() != expected) {
+                throw new IOException("Checksum mismatch of file: " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.teamdev.filestorage.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Walks the storage in the background and verifies checksums of the stored files.
+ * Every run reads no more than the specified number of bytes, so the scrubbing
+ * does not take all the disk bandwidth. Large files are read in chunks over several
+ * runs, the file is not kept open between the runs. Corrupted files are moved to the quarantine.
+ */
+public class ChecksumScrubber extends TimerTask {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumScrubber.class);
+
+    private final FileService service;
+    private final ExpiredFileCollector collector;
+    private final long bytesPerRun;
+
+    /**
+     * Files to be verified in the current pass over the storage.
+     */
+    private Iterator<File> pass = Collections.<File>emptyList().iterator();
+    private boolean passStarted;
+
+    /**
+     * File which is being verified, its checksum is computed up to the offset.
+     */
+    private File current;
+    private Long currentExpected;
+    private long currentOffset;
+    private final CRC32 currentChecksum = new CRC32();
+
+    private final Set<String> corruptedKeys =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong scannedFiles = new AtomicLong();
+    private final AtomicLong scannedBytes = new AtomicLong();
+    private final AtomicLong completedPasses = new AtomicLong();
+
+    public ChecksumScrubber(FileService service, ExpiredFileCollector collector, long bytesPerRun) {
+        this.service = service;
+        this.collector = collector;
+        this.bytesPerRun = bytesPerRun;
+    }
+
+    /**
+     * Verify next chunks of the current pass until the I/O budget of the run is spent
+     * or the pass is completed.
+     */
+    public synchronized void scrub() {
+        long budget = bytesPerRun;
+
+        final byte[] buffer = service.getBufferPool().acquire();
+        try {
+            while (budget > 0) {
+                if (current == null && !nextFile()) {
+                    return;
+                }
+                budget -= scrubChunk(buffer, budget);
+            }
+        } finally {
+            service.getBufferPool().release(buffer);
+        }
+    }
+
+    /**
+     * Take the next file of the current pass or start a new pass.
+     * @return <code>false</code> if the pass is completed or there are no files to verify
+     */
+    private boolean nextFile() {
+        if (!pass.hasNext()) {
+            if (passStarted) {
+                passStarted = false;
+                completedPasses.incrementAndGet();
+                return false;
+            }
+
+            pass = service.getChecksums().files().iterator();
+            if (!pass.hasNext()) {
+                return false;
+            }
+            passStarted = true;
+        }
+
+        current = pass.next();
+        currentExpected = service.getChecksums().get(current);
+        currentOffset = 0;
+        currentChecksum.reset();
+        return true;
+    }
+
+    /**
+     * Read the current file from the offset, verify the file when its end is reached.
+     * Removed files and files which can not be read are skipped.
+     * @param buffer buffer for the read data
+     * @param budget the maximum number of the bytes to read
+     * @return number of the bytes charged to the budget of the run
+     */
+    private long scrubChunk(byte[] buffer, long budget) {
+        long read = 0;
+        boolean finished = currentExpected == null;
+
+        if (!finished) {
+            try (InputStream input = new FileInputStream(current)) {
+                if (input.skip(currentOffset) == currentOffset) {
+                    while (read < budget) {
+                        final int count = input.read(buffer, 0, (int) Math.min(buffer.length, budget - read));
+                        if (count == -1) {
+                            finished = true;
+                            break;
+                        }
+                        currentChecksum.update(buffer, 0, count);
+                        read += count;
+                    }
+                } else {
+                    finished = true;
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Skip file which can not be read: {}", current);
+                currentExpected = null;
+                finished = true;
+            }
+        }
+
+        currentOffset += read;
+        scannedBytes.addAndGet(read);
+
+        if (finished) {
+            if (isCorrupted()) {
+                LOGGER.error("Corrupted file: " + current);
+
+                if (service.quarantineFile(current)) {
+                    collector.deleteIfExist(current);
+                    corruptedKeys.add(service.getQualifiedKey(current));
+                }
+            }
+
+            scannedFiles.incrementAndGet();
+            current = null;
+        }
+
+        return Math.max(read, 1);
+    }
+
+    private boolean isCorrupted() {
+        // The file could be replaced or removed while it was read.
+        return currentExpected != null
+                && currentChecksum.getValue() != currentExpected
+                && currentExpected.equals(service.getChecksums().get(current));
+    }
+
+    /**
+     * @return keys of the files which were found corrupted and moved to the quarantine,
+     * keys of the namespace files are qualified as <code>namespace/key</code>
+     */
+    public Set<String> getCorruptedKeys() {
+        return Collections.unmodifiableSet(corruptedKeys);
+    }
+
+    /**
+     * @param namespace the name of the namespace
+     * @return keys of the corrupted files of the specified namespace
+     */
+    public Set<String> getCorruptedKeys(String namespace) {
+        final String prefix = namespace + "/";
+        final Set<String> keys = new HashSet<>();
+        for (String key : corruptedKeys) {
+            if (key.startsWith(prefix)) {
+                keys.add(key.substring(prefix.length()));
+            }
+        }
+        return keys;
+    }
+
+    public long getScannedFiles() {
+        return scannedFiles.get();
+    }
+
+    public long getScannedBytes() {
+        return scannedBytes.get();
+    }
+
+    public long getCompletedPasses() {
+        return completedPasses.get();
+    }
+
+    @Override
+    public void run() {
+        scrub();
+    }
+}
@@ -5,37 +5,73 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Deletes temporary files when their living time is finished. Expired files are deleted
+ * in batches on the workers of {@link IoExecutor}, the property file of the temporary
+ * files is stored once per batch.
+ */
 public class ExpiredFileCollector extends TimerTask {
     private static final Logger LOGGER = LoggerFactory.getLogger(ExpiredFileCollector.class);
 
+    private static final int BATCH_SIZE = 10000;
+
     /**
-     * Map of the temporary files to be deleted in specified time.
+     * Temporary files ordered by the time to be deleted.
      */
-    private final SortedMap<Date, File> tempFiles = new ConcurrentSkipListMap<>();
+    private final NavigableSet<ExpiredFile> tempFiles = new ConcurrentSkipListSet<>();
+    private final Map<File, ExpiredFile> tempFilesIndex = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong deletedFiles = new AtomicLong();
+
     private final FileService service;
+    private final IoExecutor executor;
 
-    public ExpiredFileCollector(FileService service) {
+    public ExpiredFileCollector(FileService service, IoExecutor executor) {
         this.service = service;
+        this.executor = executor;
     }
 
     /**
      * Delete expired files from the storage.
      */
     public void purgeExpiredFiles() {
-        final Date date = new Date();
-        for (Iterator<Map.Entry<Date, File>> it = tempFiles.entrySet().iterator(); it.hasNext(); ) {
-            Map.Entry<Date, File> entry = it.next();
-
-            if (entry.getKey().compareTo(date) <= 0) {
-                service.deleteFile(tempFiles.get(tempFiles.firstKey()));
-                service.deleteExpiredFilesProperty(entry.getValue().toString());
-                it.remove();
-            } else {
+        final long now = System.currentTimeMillis();
+
+        List<File> files;
+        do {
+            files = pollExpiredFiles(now);
+            if (!files.isEmpty()) {
+                LOGGER.debug("Delete {} expired files", files.size());
+
+                deletedFiles.addAndGet(executor.deleteFiles(service, files));
+                for (File file : files) {
+                    service.deleteExpiredFilesProperty(file.toString());
+                }
+            }
+
+            service.storeExpiredFilesProperty();
+        } while (files.size() == BATCH_SIZE);
+    }
+
+    private List<File> pollExpiredFiles(long now) {
+        final List<File> files = new ArrayList<>();
+        for (Iterator<ExpiredFile> it = tempFiles.iterator(); it.hasNext() && files.size() < BATCH_SIZE; ) {
+            final ExpiredFile expiredFile = it.next();
+            if (expiredFile.timeToRemove > now) {
                 break;
             }
+
+            it.remove();
+            if (tempFilesIndex.remove(expiredFile.file, expiredFile)) {
+                files.add(expiredFile.file);
+            }
         }
+        return files;
     }
 
     /**
@@ -44,13 +80,10 @@ public class ExpiredFileCollector extends TimerTask {
      * @param timeToLiveMillis living time of the file
      */
     public void push(File file, long timeToLiveMillis) {
-        Date date = new Date();
-        while (tempFiles.containsKey(date)) {
-            date = new Date();
-        }
+        final long timeToRemove = System.currentTimeMillis() + timeToLiveMillis;
 
-        service.addExpiredFilesProperty(file.toString(), Long.toString(timeToLiveMillis + date.getTime()));
-        tempFiles.put(new Date(date.getTime() + timeToLiveMillis), file);
+        service.addExpiredFilesProperty(file.toString(), Long.toString(timeToRemove));
+        pushFromProperty(file, timeToRemove);
     }
 
     /**
@@ -59,24 +92,26 @@ public class ExpiredFileCollector extends TimerTask {
      * @param timeToRemove the time to delete file
      */
     public void pushFromProperty(File file, long timeToRemove) {
-        tempFiles.put(new Date(timeToRemove), file);
+        final ExpiredFile expiredFile = new ExpiredFile(file, timeToRemove, sequence.incrementAndGet());
+
+        final ExpiredFile previous = tempFilesIndex.put(file, expiredFile);
+        if (previous != null) {
+            tempFiles.remove(previous);
+        }
+        tempFiles.add(expiredFile);
     }
 
     /**
      * Delete file from the map if the specified file exist.
-     * @param key name of the file
+     * @param file stored file
      */
-    public void deleteIfExist(String key) {
-        LOGGER.info("Delete file if exist: " + key);
-        for (Date date : tempFiles.keySet()) {
-            final File file = tempFiles.get(date);
-            final String fileName = file.getName();
-
-            if (fileName.equals(key)) {
-                tempFiles.remove(date);
-                service.deleteExpiredFilesProperty(key);
-                break;
-            }
+    public void deleteIfExist(File file) {
+        LOGGER.debug("Delete file if exist: {}", file);
+
+        final ExpiredFile expiredFile = tempFilesIndex.remove(file);
+        if (expiredFile != null) {
+            tempFiles.remove(expiredFile);
+            service.deleteExpiredFilesProperty(file.toString());
         }
     }
 
@@ -84,8 +119,53 @@ public class ExpiredFileCollector extends TimerTask {
         return tempFiles.size();
     }
 
+    /**
+     * @return number of the files which living time is finished but which are not deleted yet
+     */
+    public int getBacklog() {
+        return tempFiles.headSet(new ExpiredFile(null, System.currentTimeMillis(), Long.MAX_VALUE)).size();
+    }
+
+    /**
+     * @return time in millis since the oldest not deleted file was expired,
+     * zero if there are no such files
+     */
+    public long getLag() {
+        try {
+            return Math.max(0, System.currentTimeMillis() - tempFiles.first().timeToRemove);
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+    }
+
+    public long getDeletedFiles() {
+        return deletedFiles.get();
+    }
+
     @Override
     public void run() {
         purgeExpiredFiles();
     }
-}
\ No newline at end of file
+
+    private static class ExpiredFile implements Comparable<ExpiredFile> {
+        private final File file;
+        private final long timeToRemove;
+
+        /**
+         * Distinguishes files with the same time to be deleted.
+         */
+        private final long sequence;
+
+        public ExpiredFile(File file, long timeToRemove, long sequence) {
+            this.file = file;
+            this.timeToRemove = timeToRemove;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ExpiredFile o) {
+            final int result = Long.compare(timeToRemove, o.timeToRemove);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
+}
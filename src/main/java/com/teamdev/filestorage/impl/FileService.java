@@ -9,137 +9,536 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 public class FileService {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileService.class);
 
+    private static final int BUFFER_SIZE = 8192;
+    private static final int BUFFER_POOL_CAPACITY = 256;
+    private static final int BUCKET_CACHE_SIZE = 4096;
+    private static final Pattern NAMESPACE_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    /**
+     * Registered instead of the upload while the file is deleted. The marker is aborted,
+     * so the readers do not wait for it.
+     */
+    private static final Upload DELETING = new Upload();
+    static {
+        DELETING.abort();
+    }
+
+    /**
+     * Checksum of the file which is being written, it is reused by the writing thread.
+     */
+    private static final ThreadLocal<CRC32> CHECKSUM = new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
     private final String rootFolder;
+    private final File rootFile;
+    private final String namespacesFolder;
+    private final File namespacesFile;
+
+    /**
+     * Path prefixes of the files of the storage and of its namespaces, they resolve
+     * the owner of the file without building the paths of its parent folders.
+     */
+    private final String rootPrefix;
+    private final String namespacesPrefix;
+    private final String quarantineFolder;
     private final long maxSpace;
 
+    /**
+     * Service of the storage which contains this namespace, or <code>null</code>
+     * for the storage itself. Used space of the namespace is also counted in the parent.
+     */
+    private final FileService parent;
+    private final ConcurrentMap<String, FileService> namespaces = new ConcurrentHashMap<>();
+
+    private final BufferPool bufferPool;
+
+    /**
+     * Files which are being written or deleted, shared by the storage and its namespaces.
+     */
+    private final ConcurrentMap<File, Upload> uploads;
+
+    /**
+     * Folders of the recently used buckets, indexed by the lowest bits of the bucket.
+     */
+    private final BucketFolder[] bucketFolders = new BucketFolder[BUCKET_CACHE_SIZE];
+
+    /**
+     * Property file of the temporary files, it is shared by the storage and its namespaces.
+     */
+    private final String expiredFilesFile;
     private final Properties expiredFilesProperty;
+    private final AtomicBoolean expiredFilesChanged;
+    private final ChecksumIndex checksums;
+
+    /**
+     * Verify checksum of the file content when the stream returned by
+     * {@link #readFile(String, int)} reaches the end of the file.
+     */
+    private final boolean verifyChecksums;
 
-    private volatile long usedSpace;
+    private final AtomicLong usedSpace = new AtomicLong();
 
-    public FileService(long maxSpace, String rootFolder) {
+    public FileService(long maxSpace, String rootFolder, String namespacesFolder, String quarantineFolder,
+                       String expiredFilesFile, ChecksumIndex checksums, boolean verifyChecksums) {
         this.maxSpace = maxSpace;
         this.rootFolder = rootFolder;
-
+        this.rootFile = new File(rootFolder);
+        this.namespacesFolder = namespacesFolder;
+        this.namespacesFile = new File(namespacesFolder);
+        this.rootPrefix = rootFile.getPath() + File.separator;
+        this.namespacesPrefix = namespacesFile.getPath() + File.separator;
+        this.quarantineFolder = quarantineFolder;
+        this.expiredFilesFile = expiredFilesFile;
+        this.checksums = checksums;
+        this.verifyChecksums = verifyChecksums;
+
+        parent = null;
+        uploads = new ConcurrentHashMap<>();
         expiredFilesProperty = new Properties();
+        expiredFilesChanged = new AtomicBoolean();
+        bufferPool = new BufferPool(BUFFER_POOL_CAPACITY, BUFFER_SIZE);
     }
 
-    public boolean createFile(String name, String folderStructure, InputStream input)
-            throws OutOfMemoryException, DuplicateFileException {
-        LOGGER.info("Create file: " + name);
+    /**
+     * Namespace service shares the metadata of the parent and keeps files in its own folder.
+     */
+    private FileService(FileService parent, String name, long maxSpace) {
+        this.maxSpace = maxSpace;
+        this.rootFolder = parent.namespacesFolder + name + "/";
+        this.rootFile = new File(rootFolder);
+        this.namespacesFolder = null;
+        this.namespacesFile = null;
+        this.rootPrefix = rootFile.getPath() + File.separator;
+        this.namespacesPrefix = null;
+        this.quarantineFolder = parent.quarantineFolder;
+        this.expiredFilesFile = parent.expiredFilesFile;
+        this.checksums = parent.checksums;
+        this.verifyChecksums = parent.verifyChecksums;
+        this.parent = parent;
+
+        uploads = parent.uploads;
+        expiredFilesProperty = parent.expiredFilesProperty;
+        expiredFilesChanged = parent.expiredFilesChanged;
+        bufferPool = parent.bufferPool;
+    }
 
-        final Path path = Paths.get(rootFolder, folderStructure, name);
+    /**
+     * Create service of the namespace with the specified name.
+     * @param name the name of the namespace
+     * @param maxSpace the maximum space of the namespace in bytes
+     * @return created service or <code>null</code> if the namespace already exists
+     */
+    public FileService createNamespace(String name, long maxSpace) {
+        if (parent != null) {
+            throw new IllegalStateException("Nested namespaces are not supported.");
+        }
+        if (!NAMESPACE_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Illegal namespace name: " + name);
+        }
 
-        if (!Files.exists(path)) {
-            if (!Files.exists(path.getParent())) {
-                createFolders(folderStructure);
-            }
+        LOGGER.info("Create namespace: " + name + ", max space: " + maxSpace);
 
-            try {
-                Files.createFile(path);
+        final FileService namespace = new FileService(this, name, maxSpace);
+        return namespaces.putIfAbsent(name, namespace) == null ? namespace : null;
+    }
 
-                try (OutputStream output = new BufferedOutputStream(
-                        new FileOutputStream(path.toString()))) {
+    public boolean createFile(String name, int bucket, InputStream input)
+            throws OutOfMemoryException, DuplicateFileException {
+        LOGGER.debug("Create file: {}", name);
 
-                    while (true) {
-                        int b = input.read();
-                        if (b == -1) {
-                            break;
-                        }
+        final File file = getFile(name, bucket);
 
-                        if (!hasSpace()) {
-                            throw new OutOfMemoryException("Out of memory.");
-                        }
+        final Upload upload = new Upload();
+        if (uploads.putIfAbsent(file, upload) != null) {
+            throw new DuplicateFileException("File is already exist.");
+        }
 
-                        output.write(b);
-                        usedSpace++;
+        boolean created = false;
+        boolean completed = false;
+        try {
+            if (!createNewFile(file)) {
+                throw new DuplicateFileException("File is already exist.");
+            }
+            created = true;
+            upload.start();
+
+            final CRC32 checksum = CHECKSUM.get();
+            checksum.reset();
+            final byte[] buffer = bufferPool.acquire();
+            try (OutputStream output = new FileOutputStream(file)) {
+                long written = 0;
+                while (true) {
+                    int count = input.read(buffer);
+                    if (count == -1) {
+                        break;
+                    }
+
+                    if (!hasSpace(count)) {
+                        throw new OutOfMemoryException("Out of memory.");
                     }
+
+                    output.write(buffer, 0, count);
+                    checksum.update(buffer, 0, count);
+                    addUsedSpace(count);
+
+                    written += count;
+                    upload.commit(written);
                 }
-            } catch (IOException e) {
-                return false;
+            } finally {
+                bufferPool.release(buffer);
             }
-        } else {
-            throw new DuplicateFileException("File is already exist.");
+
+            checksums.put(file, checksum.getValue());
+            completed = true;
+            upload.complete();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            // Partially written file has no checksum and must not be read as a complete one.
+            if (created && !completed) {
+                deletePartialFile(file);
+            }
+            upload.abort();
+            uploads.remove(file, upload);
         }
 
         return true;
     }
 
-    public boolean deleteFile(File file) {
-        LOGGER.info("Delete file: " + file.getName());
+    private void deletePartialFile(File file) {
+        LOGGER.debug("Delete partially written file: {}", file);
 
-        final Path path = Paths.get(file.toString());
+        final long fileSize = file.length();
+        if (file.delete()) {
+            addUsedSpace(-fileSize);
+        } else {
+            LOGGER.error("Failed to delete partially written file: " + file);
+        }
+    }
+
+    /**
+     * Create empty file, the folders of the bucket are created only if they are missing.
+     */
+    private boolean createNewFile(File file) throws IOException {
         try {
-            Files.delete(path);
-            usedSpace -= file.length();
-        } catch(IOException e) {
+            return file.createNewFile();
+        } catch (IOException e) {
+            createFolders(file.getParentFile());
+            return file.createNewFile();
+        }
+    }
+
+    public boolean deleteFile(File file) {
+        LOGGER.debug("Delete file: {}", file);
+
+        // The file which is being written is not deleted, the file can not be created
+        // again until it is deleted.
+        if (uploads.putIfAbsent(file, DELETING) != null) {
+            LOGGER.debug("File is being written: {}", file);
             return false;
         }
 
-        return true;
+        try {
+            final long fileSize = file.length();
+            if (!file.delete()) {
+                return false;
+            }
+
+            releaseSpace(file, fileSize);
+            checksums.remove(file);
+            return true;
+        } finally {
+            uploads.remove(file, DELETING);
+        }
+    }
+
+    /**
+     * Open stream of the stored file. The stream takes its buffer from the pool,
+     * so it has to be closed to give the buffer back.
+     */
+    public InputStream readFile(String name, int bucket) {
+        LOGGER.debug("Read file: {}", name);
+
+        final File file = getFile(name, bucket);
+
+        // The file which is being written is not visible until the upload is completed.
+        final Upload upload = uploads.get(file);
+        if (upload != null && awaitStarted(upload) == Upload.State.WRITING) {
+            return null;
+        }
+
+        return openFile(name, file);
     }
 
-    public InputStream readFile(String name, String folderStructure) {
-        LOGGER.info("Read file: " + name);
+    /**
+     * Open stream of the file which can be still written. The stream follows the upload
+     * and blocks until new data is written, the checksum of such file is not verified.
+     */
+    public InputStream tailFile(String name, int bucket) {
+        LOGGER.debug("Tail file: {}", name);
+
+        final File file = getFile(name, bucket);
+
+        final Upload upload = uploads.get(file);
+        if (upload != null && awaitStarted(upload) == Upload.State.WRITING) {
+            try {
+                return new TailInputStream(new FileInputStream(file), upload);
+            } catch (IOException e) {
+                return null;
+            }
+        }
 
-        final BufferedInputStream input;
+        return openFile(name, file);
+    }
+
+    private Upload.State awaitStarted(Upload upload) {
+        try {
+            return upload.awaitStarted();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Upload.State.WRITING;
+        }
+    }
+
+    private InputStream openFile(String name, File file) {
+        InputStream input;
         try {
-            input = new BufferedInputStream(new FileInputStream(
-                    rootFolder + folderStructure + File.separator + name));
+            input = new PooledInputStream(new FileInputStream(file), bufferPool);
         } catch (IOException e) {
             return null;
         }
 
+        if (verifyChecksums) {
+            final Long checksum = checksums.get(file);
+            if (checksum != null) {
+                input = new ChecksumInputStream(input, checksum, name);
+            }
+        }
+
         return input;
     }
 
+    /**
+     * Move corrupted file out of the storage to the quarantine folder.
+     * @param file stored file
+     * @return <code>true</code> if and only if the file was moved;
+     * <code>false</code> otherwise
+     */
+    public boolean quarantineFile(File file) {
+        LOGGER.warn("Quarantine file: " + file);
+
+        final long fileSize = file.length();
+        final Path target = Paths.get(quarantineFolder,
+                getQualifiedKey(file) + "." + System.currentTimeMillis());
+        try {
+            Files.createDirectories(target.getParent());
+            Files.move(file.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Failed to quarantine file: " + file);
+            return false;
+        }
+
+        releaseSpace(file, fileSize);
+        checksums.remove(file);
+        return true;
+    }
+
+    /**
+     * Find service of the storage or namespace which contains the specified file.
+     * @param file stored file
+     * @return the service or <code>null</code> if the file belongs to the namespace
+     * which is not created yet
+     */
+    public FileService getOwner(File file) {
+        if (parent != null) {
+            return parent.getOwner(file);
+        }
+
+        final String path = file.getPath();
+        if (path.startsWith(rootPrefix)) {
+            return this;
+        }
+
+        final String namespace = getNamespaceName(path);
+        return namespace == null ? null : namespaces.get(namespace);
+    }
+
+    /**
+     * Key of the stored file qualified by the name of the namespace which contains the file,
+     * so the same keys of the different namespaces can be told apart.
+     * @param file stored file
+     * @return the key for the file of the storage, <code>namespace/key</code> for the file
+     * of the namespace
+     */
+    public String getQualifiedKey(File file) {
+        if (parent != null) {
+            return parent.getQualifiedKey(file);
+        }
+
+        final String namespace = getNamespaceName(file.getPath());
+        return namespace == null ? file.getName() : namespace + "/" + file.getName();
+    }
+
+    /**
+     * @param path path of the stored file
+     * @return the name of the namespace which folder contains the file,
+     * <code>null</code> if the file is not in the folder of any namespace
+     */
+    private String getNamespaceName(String path) {
+        if (!path.startsWith(namespacesPrefix)) {
+            return null;
+        }
 
-    private boolean createFolders(String folderStructure) {
-        LOGGER.info("Create folders");
+        final int end = path.indexOf(File.separatorChar, namespacesPrefix.length());
+        return end == -1 ? null : path.substring(namespacesPrefix.length(), end);
+    }
 
-        File file = new File(rootFolder + File.separator + folderStructure);
-        return file.mkdirs();
+    private boolean isNamespaceFile(File file) {
+        return getNamespaceName(file.getPath()) != null;
+    }
+
+    /**
+     * Space of the files in the namespace which is not created yet is not counted,
+     * it is calculated when the namespace is created.
+     */
+    private void releaseSpace(File file, long fileSize) {
+        final FileService storage = parent != null ? parent : this;
+        final FileService owner = storage.getOwner(file);
+        if (owner != null) {
+            owner.addUsedSpace(-fileSize);
+        } else if (storage.isNamespaceFile(file)) {
+            // The file of the namespace which is not opened yet is counted by the storage only.
+            storage.addUsedSpace(-fileSize);
+        }
+    }
+
+
+    private boolean createFolders(File folder) {
+        LOGGER.debug("Create folders: {}", folder);
+
+        return folder.mkdirs();
     }
 
     public boolean hasSpace() {
-        return (maxSpace - usedSpace) > 0;
+        return hasSpace(1);
     }
 
-    public File getFile(String name, String folderStructure) {
-        return new File(rootFolder + folderStructure + File.separator + name);
+    /**
+     * @param bytes bytes to be written
+     * @return <code>true</code> if and only if the storage and all its parents
+     * have the specified free space
+     */
+    public boolean hasSpace(long bytes) {
+        return maxSpace - usedSpace.get() >= bytes && (parent == null || parent.hasSpace(bytes));
     }
 
-    public void addExpiredFilesProperty(String key, String value) {
-        LOGGER.info("Add expired file: " + key + " value: " + value + " to property file");
+    public File getFile(String name, int bucket) {
+        return new File(getBucketFolder(bucket), name);
+    }
+
+    /**
+     * Get folder of the bucket, the folder is cached to avoid building its path
+     * on every access.
+     * @param bucket the bucket of the file
+     * @return the folder
+     */
+    public File getBucketFolder(int bucket) {
+        final int index = bucket & (BUCKET_CACHE_SIZE - 1);
+
+        BucketFolder folder = bucketFolders[index];
+        if (folder == null || folder.bucket != bucket) {
+            folder = new BucketFolder(bucket, new File(rootFile,
+                    (bucket >>> 15) + File.separator + (bucket & 0x7fff)));
+            bucketFolders[index] = folder;
+        }
+
+        return folder.file;
+    }
+
+    private static class BucketFolder {
+        private final int bucket;
+        private final File file;
 
-        try(OutputStream output = new FileOutputStream(
-                "src/main/resources/tempFiles.properties")) {
-            expiredFilesProperty.setProperty(key, value);
-            expiredFilesProperty.store(output, null);
-        } catch(IOException e) {
-            LOGGER.error("Failed to add expired file property");
+        public BucketFolder(int bucket, File file) {
+            this.bucket = bucket;
+            this.file = file;
         }
     }
 
+    /**
+     * Add expired file property, the property file is written
+     * by {@link #storeExpiredFilesProperty()}.
+     */
+    public void addExpiredFilesProperty(String key, String value) {
+        LOGGER.debug("Add expired file: {} value: {} to property file", key, value);
+
+        expiredFilesProperty.setProperty(key, value);
+        expiredFilesChanged.set(true);
+    }
+
+    /**
+     * Delete expired file property, the property file is written
+     * by {@link #storeExpiredFilesProperty()}.
+     */
     public void deleteExpiredFilesProperty(String key) {
-        LOGGER.info("Delete temp file: " + key + " from property file");
+        LOGGER.debug("Delete temp file: {} from property file", key);
 
-        try(OutputStream output = new FileOutputStream("src/main/resources/tempFiles.properties")) {
-            expiredFilesProperty.remove(key);
-            expiredFilesProperty.store(output, null);
-        } catch (IOException e) {
-            LOGGER.error("Failed to delete temp files property");
+        if (expiredFilesProperty.remove(key) != null) {
+            expiredFilesChanged.set(true);
         }
     }
 
+    /**
+     * Write the property file if expired file properties were changed since it was written last time.
+     */
+    public void storeExpiredFilesProperty() {
+        if (!expiredFilesChanged.compareAndSet(true, false)) {
+            return;
+        }
+
+        synchronized (expiredFilesProperty) {
+            try(OutputStream output = new FileOutputStream(expiredFilesFile)) {
+                expiredFilesProperty.store(output, null);
+            } catch (IOException e) {
+                LOGGER.error("Failed to store temp files property");
+            }
+        }
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public ChecksumIndex getChecksums() {
+        return checksums;
+    }
+
     public Properties getExpiredFilesProperty() {
         return expiredFilesProperty;
     }
 
+    public String getExpiredFilesFile() {
+        return expiredFilesFile;
+    }
+
     public long getMaxSpace() {
         return maxSpace;
     }
@@ -148,11 +547,62 @@ public class FileService {
         return rootFolder;
     }
 
+    /**
+     * @return folder of the storage and folders of all its namespaces, including the namespaces
+     * which are not opened yet; namespace has only its own folder
+     */
+    public List<File> getStorageFolders() {
+        final List<File> folders = new ArrayList<>();
+        folders.add(rootFile);
+
+        final File[] namespaceFolders = namespacesFile == null ? null : namespacesFile.listFiles();
+        if (namespaceFolders != null) {
+            for (File folder : namespaceFolders) {
+                if (folder.isDirectory()) {
+                    folders.add(folder);
+                }
+            }
+        }
+        return folders;
+    }
+
     public long getUsedSpace() {
-        return usedSpace;
+        return usedSpace.get();
+    }
+
+    public long getFreeSpace() {
+        final long freeSpace = maxSpace - usedSpace.get();
+        return parent == null ? freeSpace : Math.min(freeSpace, parent.getFreeSpace());
+    }
+
+    /**
+     * Change used space of the storage and all its parents.
+     * @param bytes bytes to be added, negative to release space
+     */
+    public void addUsedSpace(long bytes) {
+        usedSpace.addAndGet(bytes);
+        if (parent != null) {
+            parent.addUsedSpace(bytes);
+        }
+    }
+
+    /**
+     * Add space of the files found on the recovery. The space is not added to the parents,
+     * the storage counts the files of all its namespaces on its own recovery.
+     * @param bytes bytes to be added
+     */
+    public void addRecoveredSpace(long bytes) {
+        usedSpace.addAndGet(bytes);
+    }
+
+    public boolean isNamespace() {
+        return parent != null;
     }
 
-    public void setUsedSpace(long usedSpace) {
-        this.usedSpace = usedSpace;
+    /**
+     * @return the name of the namespace or <code>null</code> for the storage
+     */
+    public String getNamespaceName() {
+        return parent == null ? null : rootFile.getName();
     }
 }
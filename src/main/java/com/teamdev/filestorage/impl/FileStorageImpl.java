@@ -5,14 +5,58 @@ import com.teamdev.filestorage.exception.DuplicateFileException;
 import com.teamdev.filestorage.exception.OutOfMemoryException;
 
 import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class FileStorageImpl implements FileStorage {
-    private final HashFile hashFile;
+    /**
+     * Bytes to be read by the checksum scrubber per second.
+     */
+    private static final long DEFAULT_SCRUB_RATE = 4 * 1024 * 1024;
+    private static final int DEFAULT_IO_THREADS = 4;
 
+    private final HashFile hashFile;
+    private final ConcurrentMap<String, FileStorage> namespaces = new ConcurrentHashMap<>();
 
     public FileStorageImpl(long maxSpace, String rootFolder) {
-        final FileService service = new FileService(maxSpace, rootFolder + "/.system/");
-        hashFile = new HashFile(service, new ExpiredFileCollector(service));
+        this(maxSpace, rootFolder, false, DEFAULT_SCRUB_RATE);
+    }
+
+    /**
+     * @param maxSpace the maximum space of the storage in bytes
+     * @param rootFolder the folder of the storage
+     * @param verifyChecksums verify checksum of the file when the stream
+     *                        returned by {@link #readFile(String)} reaches the end
+     * @param scrubRate bytes to be verified by the background scrubber per second
+     */
+    public FileStorageImpl(long maxSpace, String rootFolder, boolean verifyChecksums, long scrubRate) {
+        this(maxSpace, rootFolder, verifyChecksums, scrubRate, DEFAULT_IO_THREADS, 0);
+    }
+
+    /**
+     * @param maxSpace the maximum space of the storage in bytes
+     * @param rootFolder the folder of the storage
+     * @param verifyChecksums verify checksum of the file when the stream
+     *                        returned by {@link #readFile(String)} reaches the end
+     * @param scrubRate bytes to be verified by the background scrubber per second
+     * @param ioThreads the maximum number of the threads which delete expired and purged files
+     * @param deletesPerSecond the maximum number of the expired and purged files
+     *                         deleted per second, zero for unlimited rate
+     */
+    public FileStorageImpl(long maxSpace, String rootFolder, boolean verifyChecksums, long scrubRate,
+                           int ioThreads, long deletesPerSecond) {
+        final FileService service = new FileService(maxSpace, rootFolder + "/.system/",
+                rootFolder + "/.namespaces/", rootFolder + "/.quarantine/", rootFolder + "/tempFiles.properties",
+                new ChecksumIndex(rootFolder + "/checksums.properties"), verifyChecksums);
+        final IoExecutor executor = new IoExecutor(ioThreads, deletesPerSecond);
+        final ExpiredFileCollector collector = new ExpiredFileCollector(service, executor);
+        hashFile = new HashFile(service, collector, new ChecksumScrubber(service, collector, scrubRate),
+                executor);
+    }
+
+    private FileStorageImpl(HashFile hashFile) {
+        this.hashFile = hashFile;
     }
 
     @Override
@@ -47,6 +91,11 @@ public class FileStorageImpl implements FileStorage {
         return hashFile.openStream(key);
     }
 
+    @Override
+    public InputStream tailFile(String key) {
+        return hashFile.openTailStream(key);
+    }
+
     @Override
     public long getFreeSpace() {
         return hashFile.getFreeSpace();
@@ -56,4 +105,62 @@ public class FileStorageImpl implements FileStorage {
     public long getUsedSpace() {
         return hashFile.getUsedSpace();
     }
+
+    @Override
+    public FileStorage getNamespace(String name, long maxSpace) {
+        if (hashFile.isNamespace()) {
+            throw new IllegalStateException("Nested namespaces are not supported.");
+        }
+
+        FileStorage namespace = namespaces.get(name);
+        if (namespace == null) {
+            synchronized (namespaces) {
+                namespace = namespaces.get(name);
+                if (namespace == null) {
+                    namespace = new FileStorageImpl(hashFile.createNamespace(name, maxSpace));
+                    namespaces.put(name, namespace);
+                }
+            }
+        }
+
+        return namespace;
+    }
+
+    /**
+     * @return keys of the files which were found corrupted by the scrubber; the storage
+     * returns keys of its namespaces qualified as <code>namespace/key</code>, the namespace
+     * returns only its own keys
+     */
+    public Set<String> getCorruptedKeys() {
+        return hashFile.getCorruptedKeys();
+    }
+
+    public long getScrubbedFiles() {
+        return hashFile.getScrubber().getScannedFiles();
+    }
+
+    /**
+     * @return number of the expired files which are not deleted yet
+     */
+    public int getExpiryBacklog() {
+        return hashFile.getCollector().getBacklog();
+    }
+
+    /**
+     * @return time in millis since the oldest not deleted file was expired
+     */
+    public long getExpiryLag() {
+        return hashFile.getCollector().getLag();
+    }
+
+    public long getExpiredFiles() {
+        return hashFile.getCollector().getDeletedFiles();
+    }
+
+    /**
+     * @return number of the I/O buffers held by open streams and running writes
+     */
+    public int getBorrowedBuffers() {
+        return hashFile.getBufferPool().getBorrowedBuffers();
+    }
 }
@@ -15,6 +15,7 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 public class HashFile {
     private static final Logger LOGGER = LoggerFactory.getLogger(HashFile.class);
@@ -24,33 +25,67 @@ public class HashFile {
 
     private static final long DELAY = 500;
     private static final long PERIOD = 100;
+    private static final long SCRUB_PERIOD = 1000;
 
-    public HashFile(FileService service, ExpiredFileCollector collector) {
+    private final ChecksumScrubber scrubber;
+    private final IoExecutor executor;
+
+    public HashFile(FileService service, ExpiredFileCollector collector, ChecksumScrubber scrubber,
+                    IoExecutor executor) {
         this.service = service;
         this.collector = collector;
+        this.scrubber = scrubber;
+        this.executor = executor;
 
         checkForRecovery();
 
         final Timer timer = new Timer(true);
         timer.schedule(collector, DELAY, PERIOD);
+
+        // Scrubber reads the files, so it does not delay the deletion of the expired files.
+        final Timer scrubTimer = new Timer(true);
+        scrubTimer.schedule(scrubber, DELAY, SCRUB_PERIOD);
+    }
+
+    /**
+     * Namespace shares the timers, expired file collector, scrubber and I/O workers
+     * with the storage, so it does not start any thread.
+     */
+    private HashFile(FileService service, HashFile parent) {
+        this.service = service;
+        this.collector = parent.collector;
+        this.scrubber = parent.scrubber;
+        this.executor = parent.executor;
+
+        recoverUsedSpace();
+    }
+
+    /**
+     * Create namespace with its own keys and quota in the storage.
+     * @param name the name of the namespace
+     * @param maxSpace the maximum space of the namespace in bytes
+     * @return created namespace or <code>null</code> if the namespace already exists
+     */
+    public HashFile createNamespace(String name, long maxSpace) {
+        final FileService namespace = service.createNamespace(name, maxSpace);
+        return namespace == null ? null : new HashFile(namespace, this);
     }
 
     private int hash(String key) {
         return key.hashCode() & 0x7fffffff;
     }
 
-    private String createFolderStructure(String key) {
-        int hashCode = hash(key) % (int) Math.pow(2, 30);
-        int firstLevel = hashCode / (int) Math.pow(2, 15);
-        int secondLevel = hashCode % (int) Math.pow(2, 15);
-
-        return firstLevel + File.separator + secondLevel;
+    /**
+     * The bucket defines two levels of the folders: the highest 15 bits of the bucket
+     * are the first level, the lowest 15 bits are the second one.
+     */
+    private int bucket(String key) {
+        return hash(key) & 0x3fffffff;
     }
 
     public boolean put(String key, InputStream input) throws DuplicateFileException, OutOfMemoryException {
-        LOGGER.info("Put file: " + key);
-        final String path = createFolderStructure(key);
-        boolean success = service.createFile(key, path, input);
+        LOGGER.debug("Put file: {}", key);
+        boolean success = service.createFile(key, bucket(key), input);
         return success;
     }
 
@@ -66,14 +101,14 @@ public class HashFile {
      * @throws OutOfMemoryException
      */
     public boolean putExpiredFile(String key, InputStream input, long timeToLiveMillis) throws DuplicateFileException, OutOfMemoryException {
-        LOGGER.info("Put expired file: " + key + ", living time: " + timeToLiveMillis);
+        LOGGER.debug("Put expired file: {}, living time: {}", key, timeToLiveMillis);
 
-        final String path = createFolderStructure(key);
-        final File file = service.getFile(key, path);
+        final int bucket = bucket(key);
+        final File file = service.getFile(key, bucket);
 
         boolean success;
         synchronized (this) {
-            success = service.createFile(key, path, input);
+            success = service.createFile(key, bucket, input);
             if (success) {
                 collector.push(file, timeToLiveMillis);
             }
@@ -89,16 +124,15 @@ public class HashFile {
      * <code>false</code> otherwise
      */
     public boolean remove(String key) {
-        LOGGER.info("Remove file: " + key);
+        LOGGER.debug("Remove file: {}", key);
 
-        final String path = createFolderStructure(key);
-        final File file = service.getFile(key, path);
+        final File file = service.getFile(key, bucket(key));
 
         boolean success;
         synchronized (this) {
             success = service.deleteFile(file);
             if (success) {
-                collector.deleteIfExist(key);
+                collector.deleteIfExist(file);
             }
         }
 
@@ -106,42 +140,36 @@ public class HashFile {
     }
 
     /**
-     * Delete oldest files from storage.
+     * Delete oldest files from storage. Folders are scanned and files are deleted
+     * in parallel on the I/O workers. The storage purges files of all its namespaces,
+     * the namespace purges only its own files.
      * @param byteToRelease bytes to release
      */
     public synchronized void purgeOldFiles(long byteToRelease) {
         LOGGER.info("Purge " + byteToRelease + " bytes");
 
-        final File rootFolder = new File(service.getRootFolder());
-
-        class FileWithTime {
-            private File file;
-            private FileTime creationTime;
-
-            public FileWithTime(File file, FileTime creationTime) {
-                this.file = file;
-                this.creationTime = creationTime;
-            }
-        }
-
         final List<FileWithTime> files = new ArrayList<>();
-        BasicFileAttributes attributes;
-        Path path;
 
         if (service.getUsedSpace() > 0) {
-            try {
-                for (File firstFolder : rootFolder.listFiles()) {
-                    for (File secondFolder : firstFolder.listFiles()) {
-                        for (File file : secondFolder.listFiles()) {
-                            path = Paths.get(file.toString());
-                            attributes = Files.readAttributes(path, BasicFileAttributes.class);
-                            files.add(new FileWithTime(file, attributes.creationTime()));
+            final List<Callable<List<FileWithTime>>> tasks = new ArrayList<>();
+            for (File folder : service.getStorageFolders()) {
+                final File[] firstFolders = folder.listFiles();
+                if (firstFolders == null) {
+                    continue;
+                }
+
+                for (final File firstFolder : firstFolders) {
+                    tasks.add(new Callable<List<FileWithTime>>() {
+                        @Override
+                        public List<FileWithTime> call() {
+                            return listFiles(firstFolder);
                         }
-                    }
+                    });
                 }
+            }
 
-            } catch (IOException e) {
-                LOGGER.error("Failed to purge old files");
+            for (List<FileWithTime> folderFiles : executor.invokeAll(tasks)) {
+                files.addAll(folderFiles);
             }
         }
 
@@ -152,21 +180,37 @@ public class HashFile {
             }
         });
 
-        File file;
-        long fileSize;
+        final List<File> filesToDelete = new ArrayList<>();
         int index = 0;
         while (byteToRelease > 0 && index < files.size()) {
-            file = files.get(index).file;
-            fileSize = file.length();
+            filesToDelete.add(files.get(index).file);
+            byteToRelease -= files.get(index).size;
 
-            service.deleteFile(file);
-            collector.deleteIfExist(file.getName());
+            index++;
+        }
 
-            byteToRelease -= fileSize;
-            service.setUsedSpace(service.getUsedSpace() - fileSize);
+        executor.deleteFiles(service, filesToDelete);
+        for (File file : filesToDelete) {
+            collector.deleteIfExist(file);
+        }
+        service.storeExpiredFilesProperty();
+    }
 
-            index++;
+    private List<FileWithTime> listFiles(File firstFolder) {
+        final List<FileWithTime> files = new ArrayList<>();
+        for (File secondFolder : firstFolder.listFiles()) {
+            for (File file : secondFolder.listFiles()) {
+                try {
+                    Path path = Paths.get(file.toString());
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    files.add(new FileWithTime(file, attributes.creationTime(), attributes.size()));
+                } catch (IOException e) {
+                    // The file is deleted while the folder is scanned.
+                    LOGGER.debug("Failed to read attributes of file: {}", file);
+                }
+            }
         }
+        return files;
     }
 
     private void checkForRecovery() {
@@ -174,34 +218,49 @@ public class HashFile {
 
         Properties tempFilesProperties = service.getExpiredFilesProperty();
 
-        File rootFolder = new File(service.getRootFolder());
-        Path path = Paths.get(rootFolder.toString());
+        service.getChecksums().load();
+        recoverUsedSpace();
 
-        if (Files.exists(path)) {
-            long usedSpace = 0;
-
-            for (File firstFolder : rootFolder.listFiles()) {
-                for (File secondFolder : firstFolder.listFiles()) {
-                    for (File file : secondFolder.listFiles())
-                        usedSpace += file.length();
-                }
-            }
-
-            try (InputStream input = new FileInputStream("src/main/resources/tempFiles.properties")) {
+        // The property file is not written until the first temporary file is stored.
+        if (new File(service.getExpiredFilesFile()).exists()) {
+            try (InputStream input = new FileInputStream(service.getExpiredFilesFile())) {
                 tempFilesProperties.load(input);
             } catch (IOException e) {
                 LOGGER.error("Failed to load temp file properties");
             }
+        }
 
-            for (String key : tempFilesProperties.stringPropertyNames()) {
-                collector.pushFromProperty(new File(key),
-                        Long.valueOf(tempFilesProperties.getProperty(key)));
-            }
+        // Expired files of all the namespaces are collected by the storage.
+        for (String key : tempFilesProperties.stringPropertyNames()) {
+            collector.pushFromProperty(new File(key),
+                    Long.valueOf(tempFilesProperties.getProperty(key)));
+        }
+
+        collector.purgeExpiredFiles();
+    }
+
+    /**
+     * Calculate space of the files in the folder of the storage or namespace.
+     * The storage counts the files of all its namespaces, so the namespaces which
+     * are not opened yet are counted against the quota of the storage.
+     */
+    private void recoverUsedSpace() {
+        long usedSpace = 0;
 
-            collector.purgeExpiredFiles();
+        for (File rootFolder : service.getStorageFolders()) {
+            Path path = Paths.get(rootFolder.toString());
 
-            service.setUsedSpace(usedSpace);
+            if (Files.exists(path)) {
+                for (File firstFolder : rootFolder.listFiles()) {
+                    for (File secondFolder : firstFolder.listFiles()) {
+                        for (File file : secondFolder.listFiles())
+                            usedSpace += file.length();
+                    }
+                }
+            }
         }
+
+        service.addRecoveredSpace(usedSpace);
     }
 
     public void purgeOldFiles(float percent) {
@@ -214,16 +273,61 @@ public class HashFile {
     }
 
     public InputStream openStream(String key) {
-        LOGGER.info("Open stream of file: " + key);
+        LOGGER.debug("Open stream of file: {}", key);
+
+        return service.readFile(key, bucket(key));
+    }
 
-        return service.readFile(key, createFolderStructure(key));
+    /**
+     * Open stream of the file which can be still written.
+     * @param key the name of the file
+     * @return stream which follows the upload of the file
+     */
+    public InputStream openTailStream(String key) {
+        LOGGER.debug("Open tail stream of file: {}", key);
+
+        return service.tailFile(key, bucket(key));
     }
 
     public long getUsedSpace() {
         return service.getUsedSpace();
     }
 
+    public BufferPool getBufferPool() {
+        return service.getBufferPool();
+    }
+
+    public ChecksumScrubber getScrubber() {
+        return scrubber;
+    }
+
+    public Set<String> getCorruptedKeys() {
+        return service.isNamespace()
+                ? scrubber.getCorruptedKeys(service.getNamespaceName())
+                : scrubber.getCorruptedKeys();
+    }
+
     public long getFreeSpace() {
-        return service.getMaxSpace() - getUsedSpace();
+        return service.getFreeSpace();
+    }
+
+    public boolean isNamespace() {
+        return service.isNamespace();
+    }
+
+    public ExpiredFileCollector getCollector() {
+        return collector;
+    }
+
+    private static class FileWithTime {
+        private final File file;
+        private final FileTime creationTime;
+        private final long size;
+
+        public FileWithTime(File file, FileTime creationTime, long size) {
+            this.file = file;
+            this.creationTime = creationTime;
+            this.size = size;
+        }
     }
 }
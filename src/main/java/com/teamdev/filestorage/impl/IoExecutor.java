@@ -0,0 +1,119 @@
+package com.teamdev.filestorage.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of the workers for the background I/O of the storage and its namespaces.
+ * Threads of the pool are stopped when there is no work, so the idle storage does not
+ * hold any of them.
+ */
+public class IoExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IoExecutor.class);
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final int parallelism;
+    private final RateLimiter deleteRateLimiter;
+
+    /**
+     * @param parallelism the maximum number of the worker threads
+     * @param deletesPerSecond the maximum number of the files deleted per second,
+     *                         zero or negative for unlimited rate
+     */
+    public IoExecutor(int parallelism, long deletesPerSecond) {
+        this.parallelism = parallelism;
+        this.deleteRateLimiter = new RateLimiter(deletesPerSecond);
+
+        final String prefix = "filestorage-io-" + POOL_NUMBER.incrementAndGet() + "-";
+        executor = new ThreadPoolExecutor(parallelism, parallelism,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Delete files in parallel. Files of one bucket are deleted by the same worker,
+     * so the workers do not contend for the same folder.
+     * @param service service which deletes the files
+     * @param files files to be deleted
+     * @return number of the deleted files
+     */
+    public long deleteFiles(final FileService service, List<File> files) {
+        if (files.isEmpty()) {
+            return 0;
+        }
+
+        final int partitions = Math.min(parallelism, files.size());
+        final List<List<File>> partitionFiles = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            partitionFiles.add(new ArrayList<File>());
+        }
+        for (File file : files) {
+            final int partition = (Objects.hashCode(file.getParentFile()) & 0x7fffffff) % partitions;
+            partitionFiles.get(partition).add(file);
+        }
+
+        final AtomicLong deleted = new AtomicLong();
+        final List<Callable<Void>> tasks = new ArrayList<>(partitions);
+        for (final List<File> partition : partitionFiles) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws InterruptedException {
+                    for (File file : partition) {
+                        deleteRateLimiter.acquire();
+                        if (service.deleteFile(file)) {
+                            deleted.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        invokeAll(tasks);
+        return deleted.get();
+    }
+
+    /**
+     * Run the tasks on the workers and wait until all of them are completed.
+     * @param tasks tasks to be run
+     * @return results of the tasks, results of the failed tasks are skipped
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        final List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    LOGGER.error("I/O task failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+}
@@ -0,0 +1,110 @@
+package com.teamdev.filestorage.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered input stream which takes its buffer from the pool and gives it back on close.
+ */
+public class PooledInputStream extends FilterInputStream {
+    private final BufferPool pool;
+
+    private byte[] buffer;
+    private int position;
+    private int count;
+
+    public PooledInputStream(InputStream input, BufferPool pool) {
+        super(input);
+        this.pool = pool;
+        this.buffer = pool.acquire();
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (position >= count) {
+            fill();
+            if (count <= 0) {
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+
+        int available = count - position;
+        if (available <= 0) {
+            // Large reads do not need to be copied through the buffer.
+            if (len >= buffer.length) {
+                return in.read(b, off, len);
+            }
+
+            fill();
+            available = count;
+            if (available <= 0) {
+                return -1;
+            }
+        }
+
+        final int read = Math.min(available, len);
+        System.arraycopy(buffer, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+
+        final int available = count - position;
+        if (available <= 0) {
+            return in.skip(n);
+        }
+
+        final long skipped = Math.min(available, n);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (count - position) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        in.close();
+    }
+
+    private void fill() throws IOException {
+        ensureOpen();
+        position = 0;
+        count = in.read(buffer, 0, buffer.length);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.teamdev.filestorage.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of operations per second shared by all the threads.
+ */
+public class RateLimiter {
+    private final long intervalNanos;
+    private long nextFreeNanos = System.nanoTime();
+
+    /**
+     * @param operationsPerSecond the maximum operations per second,
+     *                            zero or negative for unlimited rate
+     */
+    public RateLimiter(long operationsPerSecond) {
+        this.intervalNanos = operationsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / operationsPerSecond : 0;
+    }
+
+    /**
+     * Wait until the next operation is allowed.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+
+        final long waitNanos;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            if (nextFreeNanos - now < 0) {
+                nextFreeNanos = now;
+            }
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += intervalNanos;
+        }
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.teamdev.filestorage.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Input stream of the file which is being written. The stream reads only the committed
+ * data of the upload and blocks until new data is written. The stream ends when the
+ * upload is completed and throws exception when the upload is aborted.
+ */
+public class TailInputStream extends InputStream {
+    private final InputStream input;
+    private final Upload upload;
+
+    private long position;
+    private long committedOffset;
+    private final byte[] single = new byte[1];
+
+    public TailInputStream(InputStream input, Upload upload) {
+        this.input = input;
+        this.upload = upload;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (position >= committedOffset) {
+            try {
+                committedOffset = upload.awaitCommitted(position);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the upload.");
+            }
+
+            if (position >= committedOffset) {
+                return -1;
+            }
+        }
+
+        final int count = input.read(b, off, (int) Math.min(len, committedOffset - position));
+        if (count > 0) {
+            position += count;
+        }
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, committedOffset - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
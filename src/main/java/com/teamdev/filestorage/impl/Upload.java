@@ -0,0 +1,72 @@
+package com.teamdev.filestorage.impl;
+
+import java.io.IOException;
+
+/**
+ * State of the file which is being written. Readers wait on the upload for the file
+ * to be created and for the new data to be written.
+ */
+public class Upload {
+    public enum State {
+        CREATING, WRITING, COMPLETED, ABORTED
+    }
+
+    private State state = State.CREATING;
+
+    /**
+     * Number of the bytes written to the file, they can be read by the readers.
+     */
+    private long committedOffset;
+
+    public synchronized void start() {
+        state = State.WRITING;
+        notifyAll();
+    }
+
+    public synchronized void commit(long offset) {
+        committedOffset = offset;
+        notifyAll();
+    }
+
+    public synchronized void complete() {
+        state = State.COMPLETED;
+        notifyAll();
+    }
+
+    /**
+     * Abort the upload, it has no effect when the upload is completed.
+     */
+    public synchronized void abort() {
+        if (state != State.COMPLETED) {
+            state = State.ABORTED;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the file is created or the upload is aborted.
+     * @return the state of the upload
+     */
+    public synchronized State awaitStarted() throws InterruptedException {
+        while (state == State.CREATING) {
+            wait();
+        }
+        return state;
+    }
+
+    /**
+     * Wait until the data after the specified offset is written or the upload is completed.
+     * @param offset the offset which is already read
+     * @return the committed offset, it is equal to the specified offset only at the end of the file
+     * @throws IOException if the upload is aborted
+     */
+    public synchronized long awaitCommitted(long offset) throws InterruptedException, IOException {
+        while (committedOffset <= offset && (state == State.CREATING || state == State.WRITING)) {
+            wait();
+        }
+        if (state == State.ABORTED) {
+            throw new IOException("Upload is aborted.");
+        }
+        return committedOffset;
+    }
+}
@@ -1,16 +1,25 @@
 package com.teamdev.filestorage;
 
 import com.teamdev.filestorage.exception.DuplicateFileException;
+import com.teamdev.filestorage.exception.OutOfMemoryException;
 import com.teamdev.filestorage.impl.FileStorageImpl;
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Collections;
 import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class FileStorageTest {
@@ -113,6 +122,31 @@ public class FileStorageTest {
         }
     }
 
+    @Test
+    public void testMassExpiry() throws StorageException, InterruptedException {
+        FileStorageImpl storage = new FileStorageImpl(maxStorageSpace, rootFolder, false, 0, 4, 0);
+        String[] names = new String[500];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = randomName();
+            try {
+                storage.saveFile(names[i], new ByteArrayInputStream(new byte[1]), 50);
+            } catch (DuplicateFileException e) {
+                i--;
+            }
+        }
+
+        for (int i = 0; i < 50 && storage.getExpiredFiles() < names.length; i++) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(names.length, storage.getExpiredFiles());
+        assertEquals(0, storage.getExpiryBacklog());
+        for (String name : names) {
+            assertEquals(null, storage.readFile(name));
+        }
+    }
+
     @Test
     public void testPurge() throws StorageException {
         storage = new FileStorageImpl(maxStorageSpace, rootFolder);
@@ -175,6 +209,282 @@ public class FileStorageTest {
         assertEquals(expected, result);
     }
 
+    @Test(expected=IOException.class)
+    public void testReadCorruptedFile() throws StorageException, IOException {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder, true, 0);
+        String name = saveRandomFile();
+
+        corruptStorageFile(name, rootFolder);
+
+        InputStream input = storage.readFile(name);
+        while (input.read() != -1) { }
+    }
+
+    @Test
+    public void testScrubCorruptedFile() throws StorageException, IOException, InterruptedException {
+        FileStorageImpl storage = new FileStorageImpl(maxStorageSpace, rootFolder, false, Long.MAX_VALUE);
+        String name = saveRandomFile(storage);
+
+        corruptStorageFile(name, rootFolder);
+
+        for (int i = 0; i < 50 && (!storage.getCorruptedKeys().contains(name)
+                || hasStorageFile(name, rootFolder)); i++) {
+            Thread.sleep(100);
+        }
+
+        assertTrue(storage.getCorruptedKeys().contains(name));
+        assertFalse(hasStorageFile(name, rootFolder));
+    }
+
+    @Test
+    public void testScrubFileInChunks() throws StorageException, IOException, InterruptedException {
+        String chunkedRootFolder = rootFolder + "/" + randomName();
+        FileStorageImpl storage = new FileStorageImpl(maxStorageSpace, chunkedRootFolder, false, 4);
+        String name = saveRandomFile(storage);
+
+        corruptStorageFile(name, chunkedRootFolder);
+
+        for (int i = 0; i < 100 && (!storage.getCorruptedKeys().contains(name)
+                || hasStorageFile(name, chunkedRootFolder)); i++) {
+            Thread.sleep(100);
+        }
+
+        assertTrue(storage.getCorruptedKeys().contains(name));
+        assertFalse(hasStorageFile(name, chunkedRootFolder));
+    }
+
+    @Test
+    public void testCompactChecksums() throws StorageException, IOException {
+        String compactedRootFolder = rootFolder + "/" + randomName();
+        storage = new FileStorageImpl(Long.MAX_VALUE, compactedRootFolder, false, 0);
+
+        for (int i = 0; i < 5000; i++) {
+            String name = saveRandomFile();
+            storage.deleteFile(name);
+        }
+
+        long lines;
+        try (BufferedReader reader = new BufferedReader(new FileReader(compactedRootFolder + "/checksums.properties"))) {
+            for (lines = 0; reader.readLine() != null; lines++) { }
+        }
+        assertTrue(lines <= 2048);
+    }
+
+    @Test
+    public void testScrubNamespaceFile() throws StorageException, IOException, InterruptedException {
+        String scrubbedRootFolder = rootFolder + "/" + randomName();
+        FileStorageImpl storage = new FileStorageImpl(maxStorageSpace, scrubbedRootFolder, false, Long.MAX_VALUE);
+        FileStorageImpl first = (FileStorageImpl) storage.getNamespace("first", 100);
+        FileStorageImpl second = (FileStorageImpl) storage.getNamespace("second", 100);
+        first.saveFile("abc", new ByteArrayInputStream("abc".getBytes()));
+        second.saveFile("abc", new ByteArrayInputStream("abc".getBytes()));
+
+        corruptFile("abc", findFile("abc", new File(scrubbedRootFolder + "/.namespaces/first/")));
+
+        for (int i = 0; i < 50 && !storage.getCorruptedKeys().contains("first/abc"); i++) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(Collections.singleton("first/abc"), storage.getCorruptedKeys());
+        assertEquals(Collections.singleton("abc"), first.getCorruptedKeys());
+        assertTrue(second.getCorruptedKeys().isEmpty());
+        assertEquals(1, new File(scrubbedRootFolder + "/.quarantine/first/").listFiles().length);
+    }
+
+    @Test
+    public void testReadFailedFile() throws StorageException {
+        storage = new FileStorageImpl(10000, rootFolder + "/" + randomName(), true, 0);
+
+        try {
+            storage.saveFile("abc", new ByteArrayInputStream(new byte[16 * 1024]));
+        } catch (OutOfMemoryException e) { }
+
+        assertEquals(null, storage.readFile("abc"));
+        assertEquals(0, storage.getUsedSpace());
+    }
+
+    @Test
+    public void testNamespaceUsedSpace() throws StorageException {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        FileStorage namespace = storage.getNamespace(randomName(), 100);
+
+        long beforeUsedSpace = storage.getUsedSpace();
+        String name = saveRandomFile(namespace);
+
+        assertEquals(name.length(), namespace.getUsedSpace());
+        assertEquals(beforeUsedSpace + name.length(), storage.getUsedSpace());
+
+        namespace.deleteFile(name);
+        assertEquals(0, namespace.getUsedSpace());
+        assertEquals(beforeUsedSpace, storage.getUsedSpace());
+    }
+
+    @Test
+    public void testPurgeNamespaceFiles() throws StorageException {
+        String purgedRootFolder = rootFolder + "/" + randomName();
+        String namespaceName = randomName();
+        storage = new FileStorageImpl(maxStorageSpace, purgedRootFolder);
+        FileStorage opened = storage.getNamespace(namespaceName, maxStorageSpace);
+        opened.saveFile("abc", new ByteArrayInputStream(new byte[8192]));
+
+        storage.purge(100f);
+        assertEquals(0, storage.getUsedSpace());
+        assertEquals(0, opened.getUsedSpace());
+
+        opened.saveFile("abc", new ByteArrayInputStream(new byte[8192]));
+
+        FileStorageImpl recovered = new FileStorageImpl(maxStorageSpace, purgedRootFolder);
+        assertEquals(8192, recovered.getUsedSpace());
+
+        recovered.purge(100f);
+        assertEquals(0, recovered.getUsedSpace());
+
+        FileStorage namespace = recovered.getNamespace(namespaceName, maxStorageSpace);
+        assertEquals(null, namespace.readFile("abc"));
+        assertEquals(0, namespace.getUsedSpace());
+    }
+
+    @Test
+    public void testNamespaceKeys() throws StorageException {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        FileStorage first = storage.getNamespace(randomName(), 100);
+        FileStorage second = storage.getNamespace(randomName(), 100);
+
+        String name = saveRandomFile(first);
+        second.saveFile(name, new ByteArrayInputStream(name.getBytes()));
+
+        assertFalse(hasStorageFile(name, rootFolder));
+        first.purge(100f);
+        assertEquals(0, first.getUsedSpace());
+        assertEquals(name.length(), second.getUsedSpace());
+        second.deleteFile(name);
+    }
+
+    @Test(expected=OutOfMemoryException.class)
+    public void testNamespaceQuota() throws StorageException {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        FileStorage namespace = storage.getNamespace(randomName(), 10);
+
+        try {
+            namespace.saveFile("abc", new ByteArrayInputStream("abcdefghijk".getBytes()));
+        } finally {
+            namespace.purge(100f);
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testReadClosedFile() throws StorageException, IOException {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        String name = saveRandomFile();
+
+        InputStream input = storage.readFile(name);
+        input.close();
+        input.read();
+    }
+
+    @Test
+    public void testTailFile() throws Exception {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        final String name = randomName();
+        final PipedOutputStream output = new PipedOutputStream();
+        Thread writer = startWriter(storage, name, new PipedInputStream(output));
+
+        output.write("abc".getBytes());
+        output.flush();
+
+        InputStream tail = openTailStream(storage, name);
+        byte[] buffer = new byte[3];
+        assertEquals(3, tail.read(buffer));
+        assertEquals("abc", new String(buffer));
+        assertEquals(null, storage.readFile(name));
+
+        output.write("def".getBytes());
+        output.close();
+
+        String result = "";
+        int b;
+        while ((b = tail.read()) != -1) {
+            result += (char) b;
+        }
+        tail.close();
+        writer.join();
+
+        assertEquals("def", result);
+        storage.deleteFile(name);
+    }
+
+    @Test(expected=IOException.class)
+    public void testTailAbortedFile() throws Exception {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        final FileStorage namespace = storage.getNamespace(randomName(), 5);
+        final String name = randomName();
+        final PipedOutputStream output = new PipedOutputStream();
+        startWriter(namespace, name, new PipedInputStream(output));
+
+        output.write("abc".getBytes());
+        output.flush();
+
+        InputStream tail = openTailStream(namespace, name);
+        assertEquals('a', tail.read());
+
+        output.write("defghijk".getBytes());
+        output.close();
+
+        try {
+            while (tail.read() != -1) { }
+        } finally {
+            tail.close();
+            namespace.purge(100f);
+        }
+    }
+
+    @Test
+    public void testDeleteWrittenFile() throws Exception {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        final String name = randomName();
+        final PipedOutputStream output = new PipedOutputStream();
+        Thread writer = startWriter(storage, name, new PipedInputStream(output));
+
+        output.write("abc".getBytes());
+        output.flush();
+        openTailStream(storage, name).close();
+
+        assertFalse(storage.deleteFile(name));
+
+        output.write("def".getBytes());
+        output.close();
+        writer.join();
+
+        InputStream input = storage.readFile(name);
+        byte[] buffer = new byte[6];
+        assertEquals(6, input.read(buffer));
+        assertEquals("abcdef", new String(buffer));
+        input.close();
+
+        assertTrue(storage.deleteFile(name));
+    }
+
+    @Test
+    public void testTailFailedFile() throws Exception {
+        storage = new FileStorageImpl(maxStorageSpace, rootFolder);
+        final FileStorage namespace = storage.getNamespace(randomName(), 5);
+        final String name = randomName();
+        final PipedOutputStream output = new PipedOutputStream();
+        Thread writer = startWriter(namespace, name, new PipedInputStream(output));
+
+        output.write("abc".getBytes());
+        output.flush();
+        openTailStream(namespace, name).close();
+
+        output.write("defghijk".getBytes());
+        output.close();
+        writer.join();
+
+        assertEquals(null, namespace.tailFile(name));
+        assertEquals(null, namespace.readFile(name));
+        assertEquals(0, namespace.getUsedSpace());
+    }
+
     @Test(expected=DuplicateFileException.class)
     public void testDuplicateFile() throws StorageException {
         storage = new FileStorageImpl(maxStorageSpace, rootFolder);
@@ -183,6 +493,52 @@ public class FileStorageTest {
         storage.saveFile("abc", new ByteArrayInputStream("abc".getBytes()));
     }
 
+    private Thread startWriter(final FileStorage storage, final String name, final InputStream input) {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    storage.saveFile(name, input);
+                } catch (StorageException e) { }
+            }
+        });
+        writer.start();
+        return writer;
+    }
+
+    private InputStream openTailStream(FileStorage storage, String name) throws InterruptedException {
+        InputStream tail = storage.tailFile(name);
+        while (tail == null) {
+            Thread.sleep(10);
+            tail = storage.tailFile(name);
+        }
+        return tail;
+    }
+
+    private String saveRandomFile() throws StorageException {
+        return saveRandomFile(storage);
+    }
+
+    private String saveRandomFile(FileStorage storage) throws StorageException {
+        while (true) {
+            String name = randomName();
+            try {
+                storage.saveFile(name, new ByteArrayInputStream(name.getBytes()));
+                return name;
+            } catch (DuplicateFileException e) { }
+        }
+    }
+
+    private void corruptStorageFile(String key, String root) throws IOException {
+        corruptFile(key, findStorageFile(key, root));
+    }
+
+    private void corruptFile(String key, File file) throws IOException {
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(new StringBuilder(key).append('!').toString().getBytes());
+        }
+    }
+
     private String randomName() {
         String name = "";
 
@@ -196,18 +552,24 @@ public class FileStorageTest {
     }
 
     private boolean hasStorageFile(String key, String root) {
-        File storageFolder = new File(root + "/.system/");
+        return findStorageFile(key, root) != null;
+    }
+
+    private File findStorageFile(String key, String root) {
+        return findFile(key, new File(root + "/.system/"));
+    }
 
+    private File findFile(String key, File storageFolder) {
         for (File firstFolder : storageFolder.listFiles()) {
             for (File secondFolder : firstFolder.listFiles()) {
-                for (String file : secondFolder.list()) {
-                    if (file.equals(key)) {
-                        return true;
+                for (File file : secondFolder.listFiles()) {
+                    if (file.getName().equals(key)) {
+                        return file;
                     }
                 }
             }
         }
 
-        return false;
+        return null;
     }
 }
@@ -0,0 +1,107 @@
+package com.teamdev.filestorage.benchmark;
+
+import com.teamdev.filestorage.StorageException;
+import com.teamdev.filestorage.impl.FileStorageImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+/**
+ * Measures bytes allocated on the heap per storage operation in the steady state and fails
+ * when an operation allocates more than its limit. The limits cover what java.io allocates
+ * for every opened file (the File of the key, the file stream with its FileDescriptor and
+ * cleaner), the bucket folders evicted from the cache and the upload state of the written file.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *           -Dexec.mainClass=com.teamdev.filestorage.benchmark.AllocationBenchmark
+ */
+public class AllocationBenchmark {
+    private static final int WARM_UP_OPERATIONS = 20000;
+    private static final int OPERATIONS = 20000;
+    private static final int FILE_SIZE = 64 * 1024;
+
+    private static final long READ_LIMIT = 1024;
+    private static final long SAVE_AND_DELETE_LIMIT = 2048;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final FileStorageImpl storage;
+    private final String[] keys = new String[OPERATIONS];
+    private final byte[] content = new byte[FILE_SIZE];
+    private final byte[] buffer = new byte[8192];
+
+    public AllocationBenchmark(String rootFolder) {
+        storage = new FileStorageImpl(Long.MAX_VALUE, rootFolder);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String rootFolder = args.length > 0 ? args[0]
+                : Files.createTempDirectory("filestorage-benchmark").toString();
+
+        final AllocationBenchmark benchmark = new AllocationBenchmark(rootFolder);
+        benchmark.saveFiles();
+
+        benchmark.readFiles(WARM_UP_OPERATIONS);
+        final long read = benchmark.readFiles(OPERATIONS);
+
+        benchmark.deleteFiles();
+        benchmark.saveAndDeleteFiles(WARM_UP_OPERATIONS);
+        final long saveAndDelete = benchmark.saveAndDeleteFiles(OPERATIONS);
+
+        System.out.println("Borrowed buffers: " + benchmark.storage.getBorrowedBuffers());
+        check("readFile", read, READ_LIMIT);
+        check("saveFile + deleteFile", saveAndDelete, SAVE_AND_DELETE_LIMIT);
+    }
+
+    private static void check(String operation, long bytesPerOperation, long limit) {
+        System.out.println(operation + ": " + bytesPerOperation + " bytes/op, limit: " + limit + " bytes/op");
+        if (bytesPerOperation > limit) {
+            throw new IllegalStateException(operation + " allocates more than " + limit + " bytes/op");
+        }
+    }
+
+    private void saveFiles() throws StorageException {
+        for (String key : keys) {
+            storage.saveFile(key, new ByteArrayInputStream(content));
+        }
+    }
+
+    private void deleteFiles() {
+        for (String key : keys) {
+            storage.deleteFile(key);
+        }
+    }
+
+    private long readFiles(int operations) throws IOException {
+        final long before = allocatedBytes();
+        for (int i = 0; i < operations; i++) {
+            try (InputStream input = storage.readFile(keys[i % keys.length])) {
+                while (input.read(buffer) != -1) { }
+            }
+        }
+        return (allocatedBytes() - before) / operations;
+    }
+
+    private long saveAndDeleteFiles(int operations) throws StorageException {
+        final ByteArrayInputStream input = new ByteArrayInputStream(content);
+
+        final long before = allocatedBytes();
+        for (int i = 0; i < operations; i++) {
+            input.reset();
+            storage.saveFile(keys[i % keys.length], input);
+            storage.deleteFile(keys[i % keys.length]);
+        }
+        return (allocatedBytes() - before) / operations;
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
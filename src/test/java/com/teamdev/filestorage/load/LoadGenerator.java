@@ -0,0 +1,349 @@
+package com.teamdev.filestorage.load;
+
+import com.teamdev.filestorage.exception.DuplicateFileException;
+import com.teamdev.filestorage.exception.OutOfMemoryException;
+import com.teamdev.filestorage.impl.FileStorageImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the storage in a temporary folder with the mix of the reads, writes, writes
+ * of the temporary files, deletes and purges from the concurrent clients. Keys of the
+ * reads and deletes are chosen with the Zipfian distribution, sizes of the files have
+ * the log-normal distribution. Throughput, latency percentiles, disk usage, heap and GC
+ * are reported for every interval.
+ *
+ * Run with: mvn -Pload verify -DskipTests -Dload.duration=3600
+ * The settings are read from the system properties listed in {@link #main(String[])}.
+ */
+public class LoadGenerator {
+    private enum Operation {
+        READ, WRITE, TTL_WRITE, DELETE, PURGE
+    }
+
+    private final FileStorageImpl storage;
+    private final Path rootFolder;
+
+    private final int clients;
+    private final long durationMillis;
+    private final long reportMillis;
+    private final int[] weights = new int[Operation.values().length];
+    private final int totalWeight;
+    private final long keys;
+    private final ZipfianGenerator keyGenerator;
+    private final int medianSize;
+    private final double sizeSigma;
+    private final int maxSize;
+    private final long timeToLiveMillis;
+    private final float purgePercent;
+
+    /**
+     * Content of all the written files, the file is a slice of this array.
+     */
+    private final byte[] content;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> failures = new EnumMap<>(Operation.class);
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    public LoadGenerator(Path rootFolder) {
+        this.rootFolder = rootFolder;
+
+        clients = Integer.getInteger("load.clients", 8);
+        durationMillis = TimeUnit.SECONDS.toMillis(Long.getLong("load.duration", 60));
+        reportMillis = TimeUnit.SECONDS.toMillis(Long.getLong("load.report", 10));
+        keys = Long.getLong("load.keys", 100000);
+        keyGenerator = new ZipfianGenerator(keys, Double.parseDouble(System.getProperty("load.zipf", "0.99")));
+        medianSize = Integer.getInteger("load.medianSize", 16 * 1024);
+        sizeSigma = Double.parseDouble(System.getProperty("load.sizeSigma", "1.5"));
+        maxSize = Integer.getInteger("load.maxSize", 16 * 1024 * 1024);
+        timeToLiveMillis = Long.getLong("load.ttl", 30000);
+        purgePercent = Float.parseFloat(System.getProperty("load.purgePercent", "1"));
+
+        weights[Operation.READ.ordinal()] = Integer.getInteger("load.read", 70);
+        weights[Operation.WRITE.ordinal()] = Integer.getInteger("load.write", 15);
+        weights[Operation.TTL_WRITE.ordinal()] = Integer.getInteger("load.ttlWrite", 10);
+        weights[Operation.DELETE.ordinal()] = Integer.getInteger("load.delete", 5);
+        weights[Operation.PURGE.ordinal()] = Integer.getInteger("load.purge", 0);
+        int totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+        this.totalWeight = totalWeight;
+
+        content = new byte[maxSize];
+        new Random().nextBytes(content);
+
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, new AtomicLong());
+        }
+
+        storage = new FileStorageImpl(Long.getLong("load.maxSpace", 1024L * 1024 * 1024),
+                rootFolder.toString(), Boolean.getBoolean("load.verifyChecksums"),
+                Long.getLong("load.scrubRate", 4 * 1024 * 1024),
+                Integer.getInteger("load.ioThreads", 4), Long.getLong("load.deleteRate", 0));
+    }
+
+    /**
+     * System properties: load.clients, load.duration (seconds), load.report (seconds),
+     * load.keys, load.zipf (skew between 0 and 1), load.medianSize, load.sizeSigma,
+     * load.maxSize (bytes), load.ttl (millis), load.read, load.write, load.ttlWrite,
+     * load.delete, load.purge (weights of the operations), load.purgePercent,
+     * load.maxSpace (bytes), load.verifyChecksums, load.scrubRate (bytes per second),
+     * load.ioThreads, load.deleteRate (files per second), load.folder.
+     */
+    public static void main(String[] args) throws Exception {
+        final String folder = System.getProperty("load.folder");
+        final Path rootFolder = folder == null || folder.isEmpty()
+                ? Files.createTempDirectory("filestorage-load") : Paths.get(folder);
+
+        final LoadGenerator generator = new LoadGenerator(rootFolder);
+        try {
+            generator.run();
+        } finally {
+            if (folder == null || folder.isEmpty()) {
+                deleteFolder(rootFolder);
+            }
+        }
+    }
+
+    public void run() throws InterruptedException, IOException {
+        System.out.println("Storage folder: " + rootFolder + ", clients: " + clients
+                + ", duration: " + durationMillis / 1000 + " s");
+
+        final long start = System.currentTimeMillis();
+        final long deadline = start + durationMillis;
+
+        final List<Thread> threads = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runClient(deadline);
+                }
+            }, "load-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        final Map<Operation, LatencyHistogram.Snapshot> totals = new EnumMap<>(Operation.class);
+        long previousGcCount = gcCount();
+        long previousGcTime = gcTime();
+        long previous = start;
+
+        printHeader();
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(Math.min(reportMillis, Math.max(1, deadline - System.currentTimeMillis())));
+
+            final long now = System.currentTimeMillis();
+            final long gcCount = gcCount();
+            final long gcTime = gcTime();
+            report(now - start, now - previous, totals, gcCount - previousGcCount, gcTime - previousGcTime);
+
+            previous = now;
+            previousGcCount = gcCount;
+            previousGcTime = gcTime;
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        printSummary(System.currentTimeMillis() - start, totals);
+    }
+
+    private void runClient(long deadline) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final byte[] buffer = new byte[8192];
+
+        while (System.currentTimeMillis() < deadline) {
+            final Operation operation = nextOperation(random);
+
+            final long started = System.nanoTime();
+            final boolean success = execute(operation, random, buffer);
+            latencies.get(operation).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+
+            if (!success) {
+                failures.get(operation).incrementAndGet();
+            }
+        }
+    }
+
+    private Operation nextOperation(Random random) {
+        int value = random.nextInt(totalWeight);
+        for (Operation operation : Operation.values()) {
+            value -= weights[operation.ordinal()];
+            if (value < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * @return <code>false</code> if the key is missing or duplicated, the storage is full
+     * or the operation failed
+     */
+    private boolean execute(Operation operation, Random random, byte[] buffer) {
+        try {
+            switch (operation) {
+                case READ:
+                    try (InputStream input = storage.readFile(popularKey(random))) {
+                        if (input == null) {
+                            return false;
+                        }
+                        while (input.read(buffer) != -1) { }
+                    }
+                    return true;
+                case WRITE:
+                    return storage.saveFile(randomKey(random), content(random));
+                case TTL_WRITE:
+                    return storage.saveFile(randomKey(random), content(random), timeToLiveMillis);
+                case DELETE:
+                    return storage.deleteFile(popularKey(random));
+                case PURGE:
+                    storage.purge(purgePercent);
+                    return true;
+                default:
+                    throw new IllegalStateException();
+            }
+        } catch (DuplicateFileException | OutOfMemoryException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Popular keys are scattered over the key space, so they are not stored in the
+     * neighbour folders.
+     */
+    private String popularKey(Random random) {
+        final long rank = keyGenerator.next(random);
+        return "key" + ((rank * 0x9E3779B97F4A7C15L) >>> 1) % keys;
+    }
+
+    private String randomKey(Random random) {
+        return "key" + (long) (random.nextDouble() * keys);
+    }
+
+    private InputStream content(Random random) {
+        final double size = medianSize * Math.exp(sizeSigma * random.nextGaussian());
+        return new ByteArrayInputStream(content, 0, (int) Math.max(0, Math.min(maxSize, size)));
+    }
+
+    private void printHeader() {
+        System.out.printf("%8s %9s %8s %8s %8s %8s %8s %8s %10s %10s %8s %6s %7s %7s %7s%n",
+                "time s", "ops/s", "read p50", "p99", "p999", "write50", "p99", "p999",
+                "used MB", "disk MB", "heap MB", "gc", "gc ms", "backlog", "buffers");
+    }
+
+    private void report(long elapsed, long interval, Map<Operation, LatencyHistogram.Snapshot> totals,
+                        long gcCount, long gcTime) throws IOException {
+        long operations = 0;
+        final Map<Operation, LatencyHistogram.Snapshot> snapshots = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            final LatencyHistogram.Snapshot snapshot = latencies.get(operation).snapshotAndReset();
+            snapshots.put(operation, snapshot);
+            operations += snapshot.getCount();
+
+            final LatencyHistogram.Snapshot total = totals.get(operation);
+            totals.put(operation, total == null ? snapshot : total.merge(snapshot));
+        }
+
+        final LatencyHistogram.Snapshot read = snapshots.get(Operation.READ);
+        final LatencyHistogram.Snapshot write = snapshots.get(Operation.WRITE)
+                .merge(snapshots.get(Operation.TTL_WRITE));
+
+        System.out.printf("%8d %9d %8d %8d %8d %8d %8d %8d %10d %10d %8d %6d %7d %7d %7d%n",
+                elapsed / 1000, operations * 1000 / Math.max(1, interval),
+                read.getQuantile(0.5), read.getQuantile(0.99), read.getQuantile(0.999),
+                write.getQuantile(0.5), write.getQuantile(0.99), write.getQuantile(0.999),
+                storage.getUsedSpace() >> 20, diskUsage(rootFolder) >> 20,
+                memory.getHeapMemoryUsage().getUsed() >> 20, gcCount, gcTime,
+                storage.getExpiryBacklog(), storage.getBorrowedBuffers());
+    }
+
+    private void printSummary(long elapsed, Map<Operation, LatencyHistogram.Snapshot> totals) {
+        System.out.println();
+        System.out.printf("%-10s %10s %10s %8s %8s %8s %8s%n",
+                "operation", "count", "failures", "ops/s", "p50 us", "p99 us", "p999 us");
+        for (Operation operation : Operation.values()) {
+            final LatencyHistogram.Snapshot total = totals.get(operation);
+            if (total == null || total.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-10s %10d %10d %8d %8d %8d %8d%n", operation, total.getCount(),
+                    failures.get(operation).get(), total.getCount() * 1000 / Math.max(1, elapsed),
+                    total.getQuantile(0.5), total.getQuantile(0.99), total.getQuantile(0.999));
+        }
+
+        System.gc();
+        System.out.println();
+        System.out.println("Heap after GC: " + (memory.getHeapMemoryUsage().getUsed() >> 20) + " MB"
+                + ", borrowed buffers: " + storage.getBorrowedBuffers()
+                + ", expired files: " + storage.getExpiredFiles()
+                + ", expiry lag: " + storage.getExpiryLag() + " ms"
+                + ", corrupted files: " + storage.getCorruptedKeys().size());
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static long diskUsage(Path folder) throws IOException {
+        final AtomicLong size = new AtomicLong();
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                size.addAndGet(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    private static void deleteFolder(Path folder) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.deleteIfExists(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
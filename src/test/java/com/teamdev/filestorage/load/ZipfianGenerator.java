@@ -0,0 +1,53 @@
+package com.teamdev.filestorage.load;
+
+import java.util.Random;
+
+/**
+ * Generates item numbers from 0 to items - 1 with the Zipfian distribution, the item 0
+ * is the most popular one. The algorithm is described in "Quickly Generating
+ * Billion-Record Synthetic Databases" by Gray et al.
+ */
+public class ZipfianGenerator {
+    private final long items;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    /**
+     * @param items the number of the items
+     * @param theta the skew of the distribution, between 0 and 1 exclusive
+     */
+    public ZipfianGenerator(long items, double theta) {
+        if (theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("Theta must be between 0 and 1: " + theta);
+        }
+
+        this.items = items;
+        this.theta = theta;
+        this.alpha = 1 / (1 - theta);
+        this.zetaN = zeta(items, theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    }
+
+    public long next(Random random) {
+        final double u = random.nextDouble();
+        final double uz = u * zetaN;
+
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < 1 + Math.pow(0.5, theta)) {
+            return Math.min(1, items - 1);
+        }
+        return Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}